@@ -1,15 +1,26 @@
 package com.lahodiuk.ahocorasick;
 
-// Java Collections are used only during the building of the automaton.
+// Java Collections are used only during the building of the automaton
+// (and for collecting the results of the batch matching).
 // The automaton itself uses only the primitive data types 
 // and does not produce garbage during the matching.
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.CharBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
 
 /**
  * Implementation of the Aho-Corasick string matching algorithm, described in
@@ -27,6 +38,26 @@ public class AhoCorasickOptimized {
 
 	private static final int INITIAL_STATE = 0;
 	private static final int FAIL = -1;
+	private static final int NO_OUTPUT_LINK = -1;
+
+	private static final String[] NO_PATTERNS = new String[0];
+
+	// layout of the state metadata:
+	// the sign bit is set for the states with the non-empty output
+	// (so the check is just "stateInfo[state] < 0"), followed by
+	// the depth of the state, the length of the longest output
+	// and the length of the shortest output (21 bits each)
+	private static final int STATE_INFO_BITS = 21;
+	private static final long STATE_INFO_MASK = (1L << STATE_INFO_BITS) - 1;
+	private static final long STATE_INFO_HAS_OUTPUT = 1L << 63;
+	private static final int STATE_INFO_DEPTH_SHIFT = 2 * STATE_INFO_BITS;
+	private static final int STATE_INFO_LONGEST_SHIFT = STATE_INFO_BITS;
+
+	static final int MAX_PATTERN_LENGTH = (int) STATE_INFO_MASK;
+
+	// amount of the texts, which are matched by the single task of the batch
+	// matching
+	private static final int BATCH_CHUNK_SIZE = 64;
 
 	// the sorted array of the unique characters (alphabet)
 	// every character from the alphabet is "mapped" to it's own index inside
@@ -40,13 +71,26 @@ public class AhoCorasickOptimized {
 	// the automaton transitions table
 	// mapping: "current state AND input character index" -> "new state"
 	private int[][] goTo;
-	// table of the outputs of every state
+	// table of the patterns, which end at every state
+	// (used only during the building of the automaton)
 	// mapping: "state" -> "matched patterns"
 	private List<String>[] output;
 	// table of the fail transitions of the automaton
 	// mapping: "state" -> "new state"
 	private int[] fail;
 
+	// compiled table of the patterns, which end at every state
+	// (all of them have the length equal to the depth of the state)
+	// mapping: "state" -> "matched patterns"
+	private String[][] ownOutput;
+	// table of the output links: the nearest state on the chain of the
+	// failure transitions, which has its own patterns
+	// mapping: "state" -> "state" (or NO_OUTPUT_LINK)
+	private int[] outputLink;
+	// packed metadata of every state (see STATE_INFO_* constants)
+	// mapping: "state" -> "has output | depth | longest output | shortest output"
+	private long[] stateInfo;
+
 	public AhoCorasickOptimized(String... patterns) {
 
 		this.initializeCharToIntMapping(patterns);
@@ -66,9 +110,11 @@ public class AhoCorasickOptimized {
 
 		this.makeInitialStateNeverFail();
 		this.calculateFailureTransitions();
+
+		this.compileOutputTable();
 	}
 
-	public void adjustFailureTransitionsSize(int actualStatesCount) {
+	private void adjustFailureTransitionsSize(int actualStatesCount) {
 		if (actualStatesCount == this.fail.length) {
 			return;
 		}
@@ -77,7 +123,7 @@ public class AhoCorasickOptimized {
 		this.fail = adjustedFail;
 	}
 
-	public void adjustOutputTableSize(int actualStatesCount) {
+	private void adjustOutputTableSize(int actualStatesCount) {
 		if (actualStatesCount == this.output.length) {
 			return;
 		}
@@ -87,7 +133,7 @@ public class AhoCorasickOptimized {
 		this.output = adjustedOutput;
 	}
 
-	public void adjustTransitionsTableSize(int actualStatesCount) {
+	private void adjustTransitionsTableSize(int actualStatesCount) {
 		if (actualStatesCount == this.goTo.length) {
 			return;
 		}
@@ -99,29 +145,347 @@ public class AhoCorasickOptimized {
 	}
 
 	public final void match(final String text, MatchCallback callback) {
+		this.matchString(text, 0, callback);
+	}
+
+	public final void match(final char[] text, MatchCallback callback) {
+		this.match(text, 0, text.length, 0, callback);
+	}
+
+	/**
+	 * Matching inside the region of the array, which starts at the given
+	 * offset. The reported positions are relative to the offset, so the
+	 * region is treated as the standalone text.
+	 */
+	public final void match(final char[] text, int offset, int length, MatchCallback callback) {
+		this.match(text, offset, length, 0, callback);
+	}
+
+	/**
+	 * Same as {@link #match(char[], int, int, MatchCallback)}, but the
+	 * patterns, which are shorter than minLength, are not reported.
+	 */
+	public final void match(final char[] text, int offset, int length, int minLength, MatchCallback callback) {
+
+		if ((offset < 0) || (length < 0) || (offset > (text.length - length))) {
+			throw new IndexOutOfBoundsException(
+					"offset: " + offset + ", length: " + length + ", array length: " + text.length);
+		}
+
+		int state = INITIAL_STATE;
+
+		for (int ci = 0; ci < length; ci++) {
+			state = this.nextState(state, text[offset + ci]);
+			if (this.stateInfo[state] < 0) {
+				this.emitOutput(state, ci, minLength, callback);
+			}
+		}
+	}
+
+	/**
+	 * The most common implementations of the CharSequence are dispatched to
+	 * the dedicated loops, so every loop observes the single receiver type of
+	 * charAt (and can be inlined by the JIT compiler). Array-backed
+	 * CharBuffers are matched without calling charAt at all.
+	 */
+	public final void match(final CharSequence text, MatchCallback callback) {
+		this.match(text, 0, callback);
+	}
+
+	/**
+	 * Same as {@link #match(CharSequence, MatchCallback)}, but the patterns,
+	 * which are shorter than minLength, are not reported. The states, where
+	 * all outputs are too short, are skipped using only the state metadata.
+	 */
+	public final void match(final CharSequence text, int minLength, MatchCallback callback) {
+
+		if (text instanceof String) {
+			this.matchString((String) text, minLength, callback);
+			return;
+		}
+
+		if (text instanceof CharBuffer) {
+			CharBuffer buffer = (CharBuffer) text;
+			if (buffer.hasArray()) {
+				this.match(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(),
+						minLength, callback);
+				return;
+			}
+		}
+
+		if (text instanceof StringBuilder) {
+			this.matchStringBuilder((StringBuilder) text, minLength, callback);
+			return;
+		}
+
+		this.matchCharSequence(text, minLength, callback);
+	}
+
+	/**
+	 * Matching of the texts using the tasks of the given executor. The texts
+	 * are split into the chunks of BATCH_CHUNK_SIZE texts, and every chunk is
+	 * matched by the single task. The results are returned in the same order
+	 * as the texts.
+	 *
+	 * The executor is not shut down by this method. Use
+	 * {@link #newBatchExecutor()} in order to run the tasks on virtual threads,
+	 * when the JVM supports them.
+	 */
+	public List<List<Match>> matchAll(List<? extends CharSequence> texts, ExecutorService executor)
+			throws InterruptedException, ExecutionException {
+
+		List<Future<List<List<Match>>>> futures = new ArrayList<>();
+		try {
+			for (int from = 0; from < texts.size(); from += BATCH_CHUNK_SIZE) {
+				List<? extends CharSequence> chunk =
+						texts.subList(from, Math.min(from + BATCH_CHUNK_SIZE, texts.size()));
+				futures.add(executor.submit(() -> this.matchChunk(chunk)));
+			}
+			return collectResults(futures, texts.size());
+		} finally {
+			cancelAll(futures);
+		}
+	}
+
+	/**
+	 * Same as {@link #matchAll(List, ExecutorService)}, but the chunks are
+	 * submitted to the executor while the stream is consumed, so the matching
+	 * of the first texts runs concurrently with the reading of the next ones.
+	 * The texts of every chunk are referenced only until the chunk is matched,
+	 * while the matches of all texts are kept until the method returns.
+	 */
+	public List<List<Match>> matchAll(Stream<? extends CharSequence> texts, ExecutorService executor)
+			throws InterruptedException, ExecutionException {
+
+		List<Future<List<List<Match>>>> futures = new ArrayList<>();
+		int amountOfTexts = 0;
+		try {
+			Iterator<? extends CharSequence> iterator = texts.iterator();
+			while (iterator.hasNext()) {
+				List<CharSequence> chunk = new ArrayList<>(BATCH_CHUNK_SIZE);
+				while (iterator.hasNext() && (chunk.size() < BATCH_CHUNK_SIZE)) {
+					chunk.add(iterator.next());
+				}
+				amountOfTexts += chunk.size();
+				futures.add(executor.submit(() -> this.matchChunk(chunk)));
+			}
+			return collectResults(futures, amountOfTexts);
+		} finally {
+			cancelAll(futures);
+		}
+	}
+
+	/**
+	 * Creates the executor, which starts a new virtual thread for every task
+	 * (on JDK 21 and newer). On the older JVMs the fixed thread pool with the
+	 * amount of threads equal to the amount of available processors is
+	 * returned.
+	 *
+	 * The caller is responsible for shutting down the returned executor.
+	 */
+	public static ExecutorService newBatchExecutor() {
+		try {
+			// lookup through reflection keeps the class compatible with Java 8
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+			// virtual threads are either absent or disabled (preview feature
+			// of JDK 19 and 20)
+			return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+		}
+	}
+
+	// The single collector is reused for all texts of the chunk
+	private List<List<Match>> matchChunk(List<? extends CharSequence> chunk) {
+		MatchCollector collector = new MatchCollector();
+		List<List<Match>> results = new ArrayList<>(chunk.size());
+		for (CharSequence text : chunk) {
+			this.match(text, collector);
+			results.add(collector.toList());
+			collector.clear();
+		}
+		return results;
+	}
+
+	private static List<List<Match>> collectResults(
+			List<Future<List<List<Match>>>> futures,
+			int amountOfTexts) throws InterruptedException, ExecutionException {
+
+		List<List<Match>> results = new ArrayList<>(amountOfTexts);
+		for (Future<List<List<Match>>> future : futures) {
+			results.addAll(future.get());
+		}
+		return results;
+	}
+
+	// in case of the failure - the remaining tasks are not needed anymore
+	private static void cancelAll(List<? extends Future<?>> futures) {
+		for (Future<?> future : futures) {
+			future.cancel(true);
+		}
+	}
+
+	private void matchString(final String text, int minLength, MatchCallback callback) {
 
 		int state = INITIAL_STATE;
 
 		for (int ci = 0; ci < text.length(); ci++) {
+			state = this.nextState(state, text.charAt(ci));
+			if (this.stateInfo[state] < 0) {
+				this.emitOutput(state, ci, minLength, callback);
+			}
+		}
+	}
+
+	private void matchStringBuilder(final StringBuilder text, int minLength, MatchCallback callback) {
 
-			char chr = text.charAt(ci);
-			int char2IntMappingIndex = Arrays.binarySearch(this.charToIntMapping, chr);
-			int chrInt = char2IntMappingIndex < 0 ? this.absentCharInt : char2IntMappingIndex;
+		int state = INITIAL_STATE;
 
-			while (this.goTo[state][chrInt] == FAIL) {
-				state = this.fail[state];
+		for (int ci = 0; ci < text.length(); ci++) {
+			state = this.nextState(state, text.charAt(ci));
+			if (this.stateInfo[state] < 0) {
+				this.emitOutput(state, ci, minLength, callback);
 			}
+		}
+	}
+
+	private void matchCharSequence(final CharSequence text, int minLength, MatchCallback callback) {
 
-			state = this.goTo[state][chrInt];
+		int state = INITIAL_STATE;
 
-			List<String> matched = this.output[state];
-			for (int j = 0; j < matched.size(); j++) {
-				String found = matched.get(j);
-				callback.onMatch((ci - found.length()) + 1, ci, found);
+		for (int ci = 0; ci < text.length(); ci++) {
+			state = this.nextState(state, text.charAt(ci));
+			if (this.stateInfo[state] < 0) {
+				this.emitOutput(state, ci, minLength, callback);
 			}
 		}
 	}
 
+	// Matching, which remembers every position, where the automaton reaches
+	// the state with the non-empty output. The result is stored as the pairs:
+	// [position, state, position, state, ...]
+	int[] matchOutputStates(final String text) {
+
+		int[] outputStates = new int[16];
+		int size = 0;
+		int state = INITIAL_STATE;
+
+		for (int ci = 0; ci < text.length(); ci++) {
+			state = this.nextState(state, text.charAt(ci));
+			if (this.stateInfo[state] < 0) {
+				outputStates = ensureCapacity(outputStates, size + 2);
+				outputStates[size++] = ci;
+				outputStates[size++] = state;
+			}
+		}
+
+		return Arrays.copyOf(outputStates, size);
+	}
+
+	int[] matchOutputStates(final CharSequence text) {
+
+		int[] outputStates = new int[16];
+		int size = 0;
+		int state = INITIAL_STATE;
+
+		for (int ci = 0; ci < text.length(); ci++) {
+			state = this.nextState(state, text.charAt(ci));
+			if (this.stateInfo[state] < 0) {
+				outputStates = ensureCapacity(outputStates, size + 2);
+				outputStates[size++] = ci;
+				outputStates[size++] = state;
+			}
+		}
+
+		return Arrays.copyOf(outputStates, size);
+	}
+
+	int[] matchOutputStates(final char[] text, int offset, int length) {
+
+		int[] outputStates = new int[16];
+		int size = 0;
+		int state = INITIAL_STATE;
+
+		for (int ci = 0; ci < length; ci++) {
+			state = this.nextState(state, text[offset + ci]);
+			if (this.stateInfo[state] < 0) {
+				outputStates = ensureCapacity(outputStates, size + 2);
+				outputStates[size++] = ci;
+				outputStates[size++] = state;
+			}
+		}
+
+		return Arrays.copyOf(outputStates, size);
+	}
+
+	// Reports the matches, which were remembered by matchOutputStates
+	void replayOutputStates(int[] outputStates, MatchCallback callback) {
+		for (int i = 0; i < outputStates.length; i += 2) {
+			this.emitOutput(outputStates[i + 1], outputStates[i], 0, callback);
+		}
+	}
+
+	private static int[] ensureCapacity(int[] array, int capacity) {
+		if (capacity <= array.length) {
+			return array;
+		}
+		return Arrays.copyOf(array, Math.max(capacity, array.length * 2));
+	}
+
+	private int nextState(int state, char chr) {
+
+		int char2IntMappingIndex = Arrays.binarySearch(this.charToIntMapping, chr);
+		int chrInt = char2IntMappingIndex < 0 ? this.absentCharInt : char2IntMappingIndex;
+
+		while (this.goTo[state][chrInt] == FAIL) {
+			state = this.fail[state];
+		}
+
+		return this.goTo[state][chrInt];
+	}
+
+	private void emitOutput(int state, int ci, int minLength, MatchCallback callback) {
+
+		long info = this.stateInfo[state];
+		if (longestOutput(info) < minLength) {
+			return;
+		}
+
+		// the check of the lengths is needed only when some outputs are too
+		// short
+		boolean checkLength = shortestOutput(info) < minLength;
+
+		// the depth of the states decreases along the output links,
+		// so the longest patterns are reported first
+		int outputState = (this.ownOutput[state].length > 0) ? state : this.outputLink[state];
+		while (outputState != NO_OUTPUT_LINK) {
+
+			int length = depth(this.stateInfo[outputState]);
+			if (checkLength && (length < minLength)) {
+				return;
+			}
+
+			String[] matched = this.ownOutput[outputState];
+			for (int j = 0; j < matched.length; j++) {
+				callback.onMatch((ci - length) + 1, ci, matched[j]);
+			}
+
+			outputState = this.outputLink[outputState];
+		}
+	}
+
+	static int depth(long stateInfo) {
+		return (int) ((stateInfo >>> STATE_INFO_DEPTH_SHIFT) & STATE_INFO_MASK);
+	}
+
+	static int longestOutput(long stateInfo) {
+		return (int) ((stateInfo >>> STATE_INFO_LONGEST_SHIFT) & STATE_INFO_MASK);
+	}
+
+	static int shortestOutput(long stateInfo) {
+		return (int) (stateInfo & STATE_INFO_MASK);
+	}
+
 	@SuppressWarnings("unchecked")
 	private void initializeOutputTable(int maxAmountOfStates) {
 		this.output = new List[maxAmountOfStates];
@@ -154,6 +518,10 @@ public class AhoCorasickOptimized {
 	private int getMaxPossibleAmountOfStates(String... patterns) {
 		int maxAmountOfStates = 1;
 		for (String s : patterns) {
+			if (s.length() > MAX_PATTERN_LENGTH) {
+				throw new IllegalArgumentException(
+						"Pattern is longer than " + MAX_PATTERN_LENGTH + " characters");
+			}
 			maxAmountOfStates += s.length();
 		}
 		return maxAmountOfStates;
@@ -205,13 +573,67 @@ public class AhoCorasickOptimized {
 					}
 
 					this.fail[stateReachableFromCurr] = this.goTo[state][chrInt];
-					this.output[stateReachableFromCurr].addAll(
-							this.output[this.fail[stateReachableFromCurr]]);
 				}
 			}
 		}
 	}
 
+	// Conversion of the output lists into the arrays, calculation of the
+	// output links and of the metadata of every state (using BFS, so the
+	// target of the failure transition is always processed before the state)
+	private void compileOutputTable() {
+
+		int statesCount = this.output.length;
+
+		this.ownOutput = new String[statesCount][];
+		this.outputLink = new int[statesCount];
+		this.stateInfo = new long[statesCount];
+
+		int[] depth = new int[statesCount];
+		// length of the longest and of the shortest output of every state
+		int[] longest = new int[statesCount];
+		int[] shortest = new int[statesCount];
+
+		Queue<Integer> queue = new LinkedList<>();
+		queue.add(INITIAL_STATE);
+
+		while (!queue.isEmpty()) {
+			int curr = queue.remove();
+
+			List<String> matched = this.output[curr];
+			this.ownOutput[curr] = matched.isEmpty() ? NO_PATTERNS : matched.toArray(new String[matched.size()]);
+
+			this.outputLink[curr] = NO_OUTPUT_LINK;
+			if (curr != INITIAL_STATE) {
+				int failState = this.fail[curr];
+				this.outputLink[curr] = (this.ownOutput[failState].length > 0)
+						? failState
+						: this.outputLink[failState];
+			}
+
+			boolean hasOutput = (this.ownOutput[curr].length > 0) || (this.outputLink[curr] != NO_OUTPUT_LINK);
+			if (hasOutput) {
+				longest[curr] = (this.ownOutput[curr].length > 0) ? depth[curr] : longest[this.outputLink[curr]];
+				shortest[curr] = (this.outputLink[curr] != NO_OUTPUT_LINK) ? shortest[this.outputLink[curr]] : depth[curr];
+			}
+
+			this.stateInfo[curr] = (hasOutput ? STATE_INFO_HAS_OUTPUT : 0)
+					| ((long) depth[curr] << STATE_INFO_DEPTH_SHIFT)
+					| ((long) longest[curr] << STATE_INFO_LONGEST_SHIFT)
+					| shortest[curr];
+
+			for (int next : this.goTo[curr]) {
+				if ((next != FAIL) && (next != INITIAL_STATE)) {
+					depth[next] = depth[curr] + 1;
+					queue.add(next);
+				}
+			}
+		}
+
+		// the output lists are not needed anymore
+		this.output = null;
+	}
+
 	private int calculateTransitionsTable(String... patterns) {
 
 		int newState = 0;
@@ -264,6 +686,72 @@ public class AhoCorasickOptimized {
 		void onMatch(int startPosition, int endPosition, String matched);
 	}
 
+	public static final class Match {
+
+		public final int startPosition;
+		public final int endPosition;
+		public final String matched;
+
+		public Match(int startPosition, int endPosition, String matched) {
+			this.startPosition = startPosition;
+			this.endPosition = endPosition;
+			this.matched = matched;
+		}
+
+		@Override
+		public int hashCode() {
+			final int prime = 31;
+			int result = 1;
+			result = (prime * result) + this.endPosition;
+			result = (prime * result) + this.matched.hashCode();
+			result = (prime * result) + this.startPosition;
+			return result;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Match)) {
+				return false;
+			}
+			Match other = (Match) obj;
+			return (this.startPosition == other.startPosition)
+					&& (this.endPosition == other.endPosition)
+					&& this.matched.equals(other.matched);
+		}
+
+		@Override
+		public String toString() {
+			return "[" + this.matched + ": " + this.startPosition + ".." + this.endPosition + "]";
+		}
+	}
+
+	// Reusable state of the batch matching: the matches of the current text
+	// are accumulated inside the buffer, which is copied into the list of the
+	// exact size after the text is matched
+	private static final class MatchCollector implements MatchCallback {
+
+		private final ArrayList<Match> matches = new ArrayList<>();
+
+		@Override
+		public void onMatch(int startPosition, int endPosition, String matched) {
+			this.matches.add(new Match(startPosition, endPosition, matched));
+		}
+
+		List<Match> toList() {
+			if (this.matches.isEmpty()) {
+				return Collections.emptyList();
+			}
+			return Collections.unmodifiableList(new ArrayList<>(this.matches));
+		}
+
+		void clear() {
+			this.matches.clear();
+		}
+	}
+
 	public static class Util {
 
 		private static final String STYLE_FAILURE_TRANSITION = " [style=dashed, color=gray, constraint=false];";
@@ -328,7 +816,7 @@ public class AhoCorasickOptimized {
 				List<Integer> visitedStates) {
 
 			for (int state : visitedStates) {
-				if (!automaton.output[state].isEmpty()) {
+				if (automaton.stateInfo[state] < 0) {
 					sb.append(TAB).append(state)
 							.append(STYLE_STATE_WITH_OUTPUT).append(NEW_LINE);
 				} else {
@@ -0,0 +1,398 @@
+package com.lahodiuk.ahocorasick;
+
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.lahodiuk.ahocorasick.AhoCorasickOptimized.MatchCallback;
+
+/**
+ * Bounded cache of the matching results of the {@link AhoCorasickOptimized}
+ * automaton, which is useful when the same texts are matched repeatedly (e.g.
+ * log lines or request URLs).
+ *
+ * The texts are identified by the 64-bit hash of their content and the length.
+ * The stored copy of the text is compared with the matched text on every hit,
+ * so the collisions of the hashes never produce the wrong results. For every
+ * text only the positions and the states of the automaton with the non-empty
+ * output are stored (as the primitive array), and the matches are reported to
+ * the callback by replaying them.
+ *
+ * The cache is set-associative: every text can be stored only inside the small
+ * set of the slots, selected by its hash, and the least recently used slot of
+ * the set is evicted. The sets are guarded by the striped locks, so the cache
+ * can be used by many threads concurrently.
+ *
+ * The tables of the automaton never change after its construction, so the
+ * cached results can become outdated only when the cache is switched to the
+ * another automaton using {@link #setAutomaton(AhoCorasickOptimized)}. Every
+ * entry remembers the automaton, which has produced it, and the entries of
+ * the previous automata are never returned.
+ */
+public class MatchCache {
+
+	// amount of the slots inside every set (approximately)
+	private static final int WAYS = 4;
+	private static final int STRIPES = 64;
+
+	private volatile AhoCorasickOptimized automaton;
+
+	private final int ways;
+	private final int sets;
+	// amount of the sets, which have one additional slot
+	private final int extendedSets;
+
+	// the hashes of the cached texts
+	// mapping: "slot" -> "hash"
+	private final long[] hashes;
+	// the cached texts and their output states
+	// mapping: "slot" -> "entry"
+	private final Entry[] entries;
+	// the moments of the last access of every slot (used for the eviction)
+	// mapping: "slot" -> "tick of the stripe"
+	private final long[] lastAccess;
+
+	private final Stripe[] stripes;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	/**
+	 * The capacity of the cache is exactly maximumSize entries. The slots are
+	 * split into the sets of 4 slots (some sets get one additional slot, when
+	 * maximumSize is not divisible by 4, and the cache with less than 8 slots
+	 * consists of the single set), so the entry can be evicted before the
+	 * whole cache is full.
+	 */
+	public MatchCache(AhoCorasickOptimized automaton, int maximumSize) {
+
+		if (maximumSize < 1) {
+			throw new IllegalArgumentException("maximumSize must be positive: " + maximumSize);
+		}
+
+		this.automaton = automaton;
+
+		this.sets = Math.max(1, maximumSize / WAYS);
+		this.ways = maximumSize / this.sets;
+		this.extendedSets = maximumSize % this.sets;
+
+		this.hashes = new long[maximumSize];
+		this.entries = new Entry[maximumSize];
+		this.lastAccess = new long[maximumSize];
+
+		this.stripes = new Stripe[Math.min(STRIPES, this.sets)];
+		for (int i = 0; i < this.stripes.length; i++) {
+			this.stripes[i] = new Stripe();
+		}
+	}
+
+	public AhoCorasickOptimized getAutomaton() {
+		return this.automaton;
+	}
+
+	/**
+	 * Switches the cache to the given automaton. All entries, which were
+	 * produced by the previous automaton, are discarded.
+	 */
+	public void setAutomaton(AhoCorasickOptimized automaton) {
+		this.automaton = automaton;
+		this.clear();
+	}
+
+	/**
+	 * Strings and array-backed CharBuffers are dispatched to the dedicated
+	 * loops (same as {@link AhoCorasickOptimized#match(CharSequence, int, MatchCallback)}).
+	 */
+	public void match(final CharSequence text, MatchCallback callback) {
+
+		if (text instanceof String) {
+			this.matchString((String) text, callback);
+			return;
+		}
+
+		if (text instanceof CharBuffer) {
+			CharBuffer buffer = (CharBuffer) text;
+			if (buffer.hasArray()) {
+				this.match(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(), callback);
+				return;
+			}
+		}
+
+		AhoCorasickOptimized currentAutomaton = this.automaton;
+		long hash = hash(text);
+
+		Entry entry = this.lookup(currentAutomaton, hash, text.length());
+		if ((entry != null) && entry.text.contentEquals(text)) {
+			this.touch(hash, entry);
+			this.hits.increment();
+		} else {
+			this.misses.increment();
+			entry = new Entry(currentAutomaton, text.toString(), currentAutomaton.matchOutputStates(text));
+			this.store(hash, entry);
+		}
+
+		currentAutomaton.replayOutputStates(entry.outputStates, callback);
+	}
+
+	/**
+	 * Matching inside the region of the array, which starts at the given
+	 * offset. The reported positions are relative to the offset.
+	 */
+	public void match(final char[] text, int offset, int length, MatchCallback callback) {
+
+		if ((offset < 0) || (length < 0) || (offset > (text.length - length))) {
+			throw new IndexOutOfBoundsException(
+					"offset: " + offset + ", length: " + length + ", array length: " + text.length);
+		}
+
+		AhoCorasickOptimized currentAutomaton = this.automaton;
+		long hash = hash(text, offset, length);
+
+		Entry entry = this.lookup(currentAutomaton, hash, length);
+		if ((entry != null) && entry.textEquals(text, offset)) {
+			this.touch(hash, entry);
+			this.hits.increment();
+		} else {
+			this.misses.increment();
+			entry = new Entry(
+					currentAutomaton,
+					new String(text, offset, length),
+					currentAutomaton.matchOutputStates(text, offset, length));
+			this.store(hash, entry);
+		}
+
+		currentAutomaton.replayOutputStates(entry.outputStates, callback);
+	}
+
+	public long getHitCount() {
+		return this.hits.sum();
+	}
+
+	public long getMissCount() {
+		return this.misses.sum();
+	}
+
+	public int getCapacity() {
+		return this.entries.length;
+	}
+
+	public int size() {
+		AhoCorasickOptimized currentAutomaton = this.automaton;
+		int size = 0;
+		for (int set = 0; set < this.sets; set++) {
+			Stripe stripe = this.stripeOf(set);
+			synchronized (stripe) {
+				for (int slot = this.firstSlot(set); slot < this.firstSlot(set + 1); slot++) {
+					if ((this.entries[slot] != null) && (this.entries[slot].automaton == currentAutomaton)) {
+						size++;
+					}
+				}
+			}
+		}
+		return size;
+	}
+
+	public void clear() {
+		for (int set = 0; set < this.sets; set++) {
+			Stripe stripe = this.stripeOf(set);
+			synchronized (stripe) {
+				Arrays.fill(this.entries, this.firstSlot(set), this.firstSlot(set + 1), null);
+			}
+		}
+	}
+
+	private void matchString(final String text, MatchCallback callback) {
+
+		AhoCorasickOptimized currentAutomaton = this.automaton;
+		long hash = hash(text);
+
+		Entry entry = this.lookup(currentAutomaton, hash, text.length());
+		if ((entry != null) && entry.text.equals(text)) {
+			this.touch(hash, entry);
+			this.hits.increment();
+		} else {
+			this.misses.increment();
+			entry = new Entry(currentAutomaton, text, currentAutomaton.matchOutputStates(text));
+			this.store(hash, entry);
+		}
+
+		currentAutomaton.replayOutputStates(entry.outputStates, callback);
+	}
+
+	// Returns the candidate entry with the same hash and length, which was
+	// produced by the given automaton. The content of the text is compared by
+	// the caller outside of the lock (the entries are immutable), and the
+	// access is recorded using touch only in case of the hit.
+	private Entry lookup(AhoCorasickOptimized currentAutomaton, long hash, int length) {
+
+		int set = this.setOf(hash);
+		Stripe stripe = this.stripeOf(set);
+
+		synchronized (stripe) {
+			for (int slot = this.firstSlot(set); slot < this.firstSlot(set + 1); slot++) {
+				Entry entry = this.entries[slot];
+				if ((entry != null)
+						&& (this.hashes[slot] == hash)
+						&& (entry.text.length() == length)
+						&& (entry.automaton == currentAutomaton)) {
+
+					return entry;
+				}
+			}
+		}
+
+		return null;
+	}
+
+	// Marks the slot of the entry as recently used (called only after the
+	// content of the text is confirmed, so the collisions of the hashes do
+	// not refresh the slot)
+	private void touch(long hash, Entry entry) {
+
+		int set = this.setOf(hash);
+		Stripe stripe = this.stripeOf(set);
+
+		synchronized (stripe) {
+			for (int slot = this.firstSlot(set); slot < this.firstSlot(set + 1); slot++) {
+				// the entry could be already evicted by the another thread
+				if (this.entries[slot] == entry) {
+					this.lastAccess[slot] = ++stripe.tick;
+					return;
+				}
+			}
+		}
+	}
+
+	private void store(long hash, Entry entry) {
+
+		int set = this.setOf(hash);
+		Stripe stripe = this.stripeOf(set);
+
+		synchronized (stripe) {
+			int victim = -1;
+			for (int slot = this.firstSlot(set); slot < this.firstSlot(set + 1); slot++) {
+				Entry cached = this.entries[slot];
+
+				// the same text could be stored by the another thread (or the
+				// slot contains the different text with the same hash and
+				// length) - the slot is replaced, so the set never contains
+				// the duplicates
+				if ((cached != null)
+						&& (this.hashes[slot] == hash)
+						&& (cached.text.length() == entry.text.length())) {
+					victim = slot;
+					break;
+				}
+
+				// otherwise the empty slot, the slot of the previous automaton,
+				// or the least recently used slot is replaced
+				if ((victim == -1) || this.isBetterVictim(slot, victim)) {
+					victim = slot;
+				}
+			}
+
+			this.hashes[victim] = hash;
+			this.entries[victim] = entry;
+			this.lastAccess[victim] = ++stripe.tick;
+		}
+	}
+
+	private boolean isBetterVictim(int slot, int victim) {
+		int slotPriority = this.priorityOfEviction(slot);
+		int victimPriority = this.priorityOfEviction(victim);
+		if (slotPriority != victimPriority) {
+			return slotPriority > victimPriority;
+		}
+		return this.lastAccess[slot] < this.lastAccess[victim];
+	}
+
+	private int priorityOfEviction(int slot) {
+		Entry entry = this.entries[slot];
+		if (entry == null) {
+			return 2;
+		}
+		if (entry.automaton != this.automaton) {
+			return 1;
+		}
+		return 0;
+	}
+
+	// the first "extendedSets" sets contain one additional slot
+	private int firstSlot(int set) {
+		return (set * this.ways) + Math.min(set, this.extendedSets);
+	}
+
+	private int setOf(long hash) {
+		return (int) ((hash >>> 1) % this.sets);
+	}
+
+	private Stripe stripeOf(int set) {
+		return this.stripes[set % this.stripes.length];
+	}
+
+	private static long hash(String text) {
+		int length = text.length();
+		long hash = length;
+		for (int i = 0; i < length; i++) {
+			hash = (hash * 0x100000001B3L) ^ text.charAt(i);
+		}
+		return mix(hash);
+	}
+
+	private static long hash(CharSequence text) {
+		int length = text.length();
+		long hash = length;
+		for (int i = 0; i < length; i++) {
+			hash = (hash * 0x100000001B3L) ^ text.charAt(i);
+		}
+		return mix(hash);
+	}
+
+	private static long hash(char[] text, int offset, int length) {
+		long hash = length;
+		for (int i = offset; i < (offset + length); i++) {
+			hash = (hash * 0x100000001B3L) ^ text[i];
+		}
+		return mix(hash);
+	}
+
+	// Finalization step of the MurmurHash3 (spreads the bits of the hash,
+	// because the hash is used for the selection of the set)
+	private static long mix(long hash) {
+		hash ^= hash >>> 33;
+		hash *= 0xFF51AFD7ED558CCDL;
+		hash ^= hash >>> 33;
+		hash *= 0xC4CEB9FE1A85EC53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+	private static final class Stripe {
+
+		// counter of the accesses to the sets of the stripe
+		long tick;
+	}
+
+	private static final class Entry {
+
+		final AhoCorasickOptimized automaton;
+		final String text;
+		// pairs: [position, state, position, state, ...]
+		final int[] outputStates;
+
+		Entry(AhoCorasickOptimized automaton, String text, int[] outputStates) {
+			this.automaton = automaton;
+			this.text = text;
+			this.outputStates = outputStates;
+		}
+
+		boolean textEquals(char[] array, int offset) {
+			for (int i = 0; i < this.text.length(); i++) {
+				if (this.text.charAt(i) != array[offset + i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
@@ -1,8 +1,12 @@
 package com.lahodiuk.ahocorasick;
 
+import java.nio.CharBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -64,4 +68,159 @@ public class AhoCorasickTest {
 			Assert.assertEquals(expected, actual);
 		}
 	}
+
+	@Test
+	public void test4() {
+
+		String haystack = "ushers ushers ushers ushers ushers test 123 ushers";
+		String[] needles = { "he", "she", "his", "hers", "abcdef" };
+		AhoCorasickOptimized alg = new AhoCorasickOptimized(needles);
+
+		List<Found> expected = Utils.matchUsingDefaultJavaFunctionality(haystack, needles);
+
+		Assert.assertEquals(expected, Utils.collect(cb -> alg.match(haystack.toCharArray(), cb)));
+		Assert.assertEquals(expected, Utils.collect(cb -> alg.match(new StringBuilder(haystack), cb)));
+		Assert.assertEquals(expected, Utils.collect(cb -> alg.match(CharBuffer.wrap(haystack), cb)));
+		Assert.assertEquals(expected, Utils.collect(cb -> alg.match((CharSequence) haystack, cb)));
+	}
+
+	@Test
+	public void test5() {
+
+		String prefix = "shers";
+		String haystack = "ushers";
+		String suffix = "his";
+		String[] needles = { "he", "she", "his", "hers" };
+		AhoCorasickOptimized alg = new AhoCorasickOptimized(needles);
+
+		List<Found> expected = Utils.matchUsingDefaultJavaFunctionality(haystack, needles);
+
+		char[] buffer = (prefix + haystack + suffix).toCharArray();
+		Assert.assertEquals(expected,
+				Utils.collect(cb -> alg.match(buffer, prefix.length(), haystack.length(), cb)));
+
+		CharBuffer charBuffer = CharBuffer.wrap(buffer, prefix.length(), haystack.length()).slice();
+		Assert.assertEquals(expected, Utils.collect(cb -> alg.match(charBuffer, cb)));
+
+		try {
+			alg.match(buffer, prefix.length(), buffer.length, (start, end, found) -> {
+			});
+			Assert.fail();
+		} catch (IndexOutOfBoundsException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void test6() throws Exception {
+
+		Random rnd = new Random(0);
+
+		char[] alphabet = "abcd".toCharArray();
+		String[] needles = Utils.generateRandomNeedles(rnd, alphabet, 100, 10);
+		AhoCorasickOptimized alg = new AhoCorasickOptimized(needles);
+
+		List<String> haystacks = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			haystacks.add(Utils.generateRandomString(rnd, alphabet, 1000));
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<List<AhoCorasickOptimized.Match>> actual = alg.matchAll(haystacks, executor);
+
+			Assert.assertEquals(haystacks.size(), actual.size());
+			for (int i = 0; i < haystacks.size(); i++) {
+				List<Found> expected = Utils.matchUsingDefaultJavaFunctionality(haystacks.get(i), needles);
+				Assert.assertEquals(expected, Utils.toFound(actual.get(i)));
+			}
+
+			Assert.assertEquals(actual, alg.matchAll(haystacks.stream(), executor));
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void test7() {
+
+		Random rnd = new Random(0);
+
+		char[] alphabet = "abcd".toCharArray();
+		int maxPatternLength = 10;
+		int numTests = 100;
+
+		for (int test = 0; test < numTests; test++) {
+
+			String haystack = Utils.generateRandomString(rnd, alphabet, 1000);
+			String[] needles = Utils.generateRandomNeedles(rnd, alphabet, 100, maxPatternLength);
+			int minLength = rnd.nextInt(maxPatternLength + 2);
+			AhoCorasickOptimized alg = new AhoCorasickOptimized(needles);
+
+			List<Found> expected = new ArrayList<>();
+			for (Found found : Utils.matchUsingDefaultJavaFunctionality(haystack, needles)) {
+				if (found.found.length() >= minLength) {
+					expected.add(found);
+				}
+			}
+
+			Assert.assertEquals(expected, Utils.collect(cb -> alg.match(haystack, minLength, cb)));
+			Assert.assertEquals(expected, Utils.collect(cb -> alg.match(new StringBuilder(haystack), minLength, cb)));
+			Assert.assertEquals(expected,
+					Utils.collect(cb -> alg.match(haystack.toCharArray(), 0, haystack.length(), minLength, cb)));
+		}
+	}
+
+	@Test
+	public void test8() {
+
+		String haystack = "ushers";
+		AhoCorasickOptimized alg = new AhoCorasickOptimized("he", "she", "his", "hers");
+
+		// the state "she" has the longest output 3 and the shortest output 2
+		// (inherited "he"), the state "hers" has the single output of length 4
+		Assert.assertEquals(
+				Arrays.asList(new Found("he", 2, 3), new Found("hers", 2, 5), new Found("she", 1, 3)),
+				Utils.collect(cb -> alg.match((CharSequence) haystack, 2, cb)));
+		Assert.assertEquals(
+				Arrays.asList(new Found("hers", 2, 5), new Found("she", 1, 3)),
+				Utils.collect(cb -> alg.match((CharSequence) haystack, 3, cb)));
+		Assert.assertEquals(
+				Arrays.asList(new Found("hers", 2, 5)),
+				Utils.collect(cb -> alg.match((CharSequence) haystack, 4, cb)));
+		Assert.assertEquals(
+				Arrays.asList(),
+				Utils.collect(cb -> alg.match((CharSequence) haystack, 5, cb)));
+	}
+
+	@Test
+	public void test9() {
+
+		String prefix = "shers";
+		String haystack = "ushers his";
+		String[] needles = { "he", "she", "his", "hers" };
+		AhoCorasickOptimized alg = new AhoCorasickOptimized(needles);
+
+		List<Found> expected = new ArrayList<>();
+		for (Found found : Utils.matchUsingDefaultJavaFunctionality(haystack, needles)) {
+			if (found.found.length() >= 3) {
+				expected.add(found);
+			}
+		}
+
+		char[] buffer = (prefix + haystack).toCharArray();
+		CharBuffer charBuffer = CharBuffer.wrap(buffer, prefix.length(), haystack.length()).slice();
+		Assert.assertEquals(prefix.length(), charBuffer.arrayOffset());
+
+		Assert.assertEquals(expected, Utils.collect(cb -> alg.match(charBuffer, 3, cb)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void test10() {
+
+		char[] pattern = new char[AhoCorasickOptimized.MAX_PATTERN_LENGTH + 1];
+		Arrays.fill(pattern, 'a');
+
+		new AhoCorasickOptimized("he", new String(pattern));
+	}
 }
@@ -0,0 +1,158 @@
+package com.lahodiuk.ahocorasick;
+
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MatchCacheTest {
+
+	@Test
+	public void test1() {
+
+		String haystack = "ushers ushers ushers ushers ushers test 123 ushers";
+		String[] needles = { "he", "she", "his", "hers", "abcdef" };
+		MatchCache cache = new MatchCache(new AhoCorasickOptimized(needles), 16);
+
+		List<Found> expected = Utils.matchUsingDefaultJavaFunctionality(haystack, needles);
+
+		Assert.assertEquals(expected, Utils.collect(cb -> cache.match(haystack, cb)));
+		Assert.assertEquals(0, cache.getHitCount());
+		Assert.assertEquals(1, cache.getMissCount());
+
+		Assert.assertEquals(expected, Utils.collect(cb -> cache.match(new StringBuilder(haystack), cb)));
+		Assert.assertEquals(1, cache.getHitCount());
+
+		char[] buffer = ("xyz" + haystack).toCharArray();
+		Assert.assertEquals(expected, Utils.collect(cb -> cache.match(buffer, 3, haystack.length(), cb)));
+		Assert.assertEquals(2, cache.getHitCount());
+		Assert.assertEquals(1, cache.getMissCount());
+		Assert.assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void test2() {
+
+		Random rnd = new Random(0);
+
+		char[] alphabet = "abcd".toCharArray();
+		String[] needles = Utils.generateRandomNeedles(rnd, alphabet, 100, 10);
+		MatchCache cache = new MatchCache(new AhoCorasickOptimized(needles), 8);
+
+		String[] haystacks = new String[20];
+		for (int i = 0; i < haystacks.length; i++) {
+			haystacks[i] = Utils.generateRandomString(rnd, alphabet, 100);
+		}
+
+		for (int i = 0; i < 1000; i++) {
+			String haystack = haystacks[rnd.nextInt(haystacks.length)];
+
+			List<Found> expected = Utils.matchUsingDefaultJavaFunctionality(haystack, needles);
+			Assert.assertEquals(expected, Utils.collect(cb -> cache.match(haystack, cb)));
+		}
+
+		Assert.assertTrue(cache.size() <= 8);
+		Assert.assertEquals(1000, cache.getHitCount() + cache.getMissCount());
+	}
+
+	@Test
+	public void test3() {
+
+		String[] needles = { "he", "she", "his", "hers" };
+		AhoCorasickOptimized automaton = new AhoCorasickOptimized(needles);
+
+		for (int maximumSize : new int[] { 1, 3, 7, 1000, 1001 }) {
+			MatchCache cache = new MatchCache(automaton, maximumSize);
+			Assert.assertEquals(maximumSize, cache.getCapacity());
+
+			for (int i = 0; i < (maximumSize * 20); i++) {
+				cache.match("line " + i, (start, end, found) -> {
+				});
+			}
+			Assert.assertEquals(maximumSize, cache.size());
+		}
+	}
+
+	@Test
+	public void test4() {
+
+		String haystack = "ushers";
+		String[] needles1 = { "he", "she" };
+		String[] needles2 = { "his", "hers" };
+		MatchCache cache = new MatchCache(new AhoCorasickOptimized(needles1), 16);
+
+		Assert.assertEquals(Utils.matchUsingDefaultJavaFunctionality(haystack, needles1),
+				Utils.collect(cb -> cache.match(haystack, cb)));
+
+		cache.setAutomaton(new AhoCorasickOptimized(needles2));
+		Assert.assertEquals(0, cache.size());
+
+		Assert.assertEquals(Utils.matchUsingDefaultJavaFunctionality(haystack, needles2),
+				Utils.collect(cb -> cache.match(haystack, cb)));
+		Assert.assertEquals(0, cache.getHitCount());
+		Assert.assertEquals(2, cache.getMissCount());
+		Assert.assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void test5() throws Exception {
+
+		String haystack = "ushers ushers ushers ushers ushers test 123 ushers";
+		String[] needles = { "he", "she", "his", "hers", "abcdef" };
+		MatchCache cache = new MatchCache(new AhoCorasickOptimized(needles), 16);
+
+		List<Found> expected = Utils.matchUsingDefaultJavaFunctionality(haystack, needles);
+
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<List<Found>>> futures = new ArrayList<>();
+			for (int i = 0; i < 100; i++) {
+				futures.add(executor.submit(() -> Utils.collect(cb -> cache.match(haystack, cb))));
+			}
+			for (Future<List<Found>> future : futures) {
+				Assert.assertEquals(expected, future.get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		// the threads, which missed concurrently, do not store the duplicates
+		Assert.assertEquals(1, cache.size());
+		Assert.assertEquals(100, cache.getHitCount() + cache.getMissCount());
+
+		char[] buffer = ("xyz" + haystack).toCharArray();
+		CharBuffer charBuffer = CharBuffer.wrap(buffer, 3, haystack.length()).slice();
+		Assert.assertEquals(expected, Utils.collect(cb -> cache.match(charBuffer, cb)));
+		Assert.assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void test6() {
+
+		// the cache with 2 slots consists of the single set
+		MatchCache cache = new MatchCache(new AhoCorasickOptimized("he", "she", "his", "hers"), 2);
+		AhoCorasickOptimized.MatchCallback ignore = (start, end, found) -> {
+		};
+
+		cache.match("ushers", ignore);
+		cache.match("his", ignore);
+		// the hit makes "ushers" the most recently used text
+		cache.match("ushers", ignore);
+		Assert.assertEquals(1, cache.getHitCount());
+
+		// so "his" is evicted
+		cache.match("hers", ignore);
+		cache.match("ushers", ignore);
+		Assert.assertEquals(2, cache.getHitCount());
+
+		cache.match("his", ignore);
+		Assert.assertEquals(2, cache.getHitCount());
+		Assert.assertEquals(4, cache.getMissCount());
+	}
+}
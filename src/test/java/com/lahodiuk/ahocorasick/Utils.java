@@ -4,6 +4,10 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Random;
+import java.util.function.Consumer;
+
+import com.lahodiuk.ahocorasick.AhoCorasickOptimized.Match;
+import com.lahodiuk.ahocorasick.AhoCorasickOptimized.MatchCallback;
 
 public class Utils {
 
@@ -37,6 +41,27 @@ public class Utils {
 		return result;
 	}
 
+	/**
+	 * Collect all matches, which are reported to the callback
+	 */
+	public static List<Found> collect(Consumer<MatchCallback> matching) {
+		List<Found> result = new ArrayList<>();
+		matching.accept((start, end, found) -> result.add(new Found(found, start, end)));
+
+		Collections.sort(result);
+		return result;
+	}
+
+	public static List<Found> toFound(List<Match> matches) {
+		List<Found> result = new ArrayList<>();
+		for (Match match : matches) {
+			result.add(new Found(match.matched, match.startPosition, match.endPosition));
+		}
+
+		Collections.sort(result);
+		return result;
+	}
+
 	/**
 	 * Find all needles using java.lang.String.indexOf(String, int)
 	 */